@@ -37,6 +37,17 @@ public class EventController {
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/stats/duration")
+    public ResponseEntity<com.buyogo.assignment.dto.DurationStatsResponse> getDurationStats(
+            @RequestParam String machineId,
+            @RequestParam String start,
+            @RequestParam String end
+    ) {
+        return ResponseEntity.ok(
+                eventService.getDurationStats(machineId, Instant.parse(start), Instant.parse(end))
+        );
+    }
+
     @GetMapping("/stats/top-defect-lines")
     public ResponseEntity<List<com.buyogo.assignment.dto.TopDefectLineResponse>> getTopDefectLines(
             @RequestParam(required = false) String factoryId, // Not used but required by API spec
@@ -48,4 +59,9 @@ public class EventController {
                 eventService.getTopDefectLines(Instant.parse(from), Instant.parse(to), limit)
         );
     }
+
+    @GetMapping("/stats/cache")
+    public ResponseEntity<com.buyogo.assignment.dto.CacheMetricsResponse> getCacheMetrics() {
+        return ResponseEntity.ok(eventService.getCacheMetrics());
+    }
 }
@@ -0,0 +1,17 @@
+package com.buyogo.assignment.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class CacheMetricsResponse {
+    private long statsSize;
+    private long statsHitCount;
+    private long statsMissCount;
+    private double statsHitRate; // 0.0 - 1.0
+    private long topDefectSize;
+    private long topDefectHitCount;
+    private long topDefectMissCount;
+    private double topDefectHitRate;
+}
@@ -0,0 +1,19 @@
+package com.buyogo.assignment.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class DurationStatsResponse {
+    private String machineId;
+    private String start; // ISO String
+    private String end;   // ISO String
+    private long eventsCount;
+    private long totalDurationMs;
+    private double avgDurationMs;
+    private double utilization; // totalDurationMs / window length
+    private long p50DurationMs; // Percentiles are approximate (within 1%)
+    private long p95DurationMs;
+    private long p99DurationMs;
+}
@@ -39,6 +39,11 @@ public class MachineEvent {
     @Column(nullable = false)
     private Instant receivedTime;
 
+    // Optimistic lock: a batch that updates a row another batch changed since it was read
+    // fails and is retried, so the old duration it removes from the sketches is the real one
+    @Version
+    private Long version;
+
     // Helper method to determine if defect should be counted
     public boolean isDefectKnown() {
         return this.defectCount != -1; // Rule: defectCount = -1 means "unknown" -> ignore [cite: 102]
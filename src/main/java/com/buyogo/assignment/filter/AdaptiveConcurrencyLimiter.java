@@ -0,0 +1,96 @@
+package com.buyogo.assignment.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gradient concurrency limit (in the spirit of Netflix's Gradient2). Latency is sampled
+ * per unit of work (e.g. per KB of batch body), so big batches on an idle server don't
+ * look like load. A short-term average is compared against a slow-moving baseline: while
+ * it stays within {@code tolerance} x baseline the limit grows by about sqrt(limit), and
+ * as it rises above that the limit shrinks by up to half. Failures caused by overload
+ * cut the limit by 10%. The limit stays within [min, max].
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double SHORT_ALPHA = 0.1;  // ~ last 10 samples
+    private static final double LONG_ALPHA = 0.01;  // ~ last 100 samples
+    private static final double SMOOTHING = 0.2;    // How fast the limit moves towards its new target
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    // Latency per unit of work, in nanos; guarded by this
+    private double shortLatency;
+    private double baselineLatency;
+
+    public AdaptiveConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos how long the request took
+     * @param units        size of the request's work (>= 1), latency is normalized by it
+     * @param overloaded   the request failed because the backend is saturated
+     */
+    public void release(long latencyNanos, long units, boolean overloaded) {
+        int wasInFlight = inFlight.getAndDecrement();
+
+        synchronized (this) {
+            if (overloaded) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                return;
+            }
+
+            double sample = (double) latencyNanos / Math.max(1, units);
+            if (baselineLatency == 0) {
+                shortLatency = baselineLatency = sample;
+                return;
+            }
+            shortLatency += SHORT_ALPHA * (sample - shortLatency);
+            baselineLatency += LONG_ALPHA * (sample - baselineLatency);
+            if (baselineLatency > 2 * shortLatency) {
+                // Backend recovered: let the baseline come down faster than the slow average would
+                baselineLatency *= 0.95;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineLatency / shortLatency));
+            // Only probe upwards while the current limit is actually being used
+            double headroom = (wasInFlight * 2 >= limit) ? Math.sqrt(limit) : 0;
+            double target = limit * gradient + headroom;
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+        }
+    }
+
+    /** Frees the slot without sampling, for requests that say nothing about load (e.g. bad input). */
+    public void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,169 @@
+package com.buyogo.assignment.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of EventController, so a burst of gateway flushes
+ * can't saturate the JDBC pool and starve the stats readers.
+ * <ul>
+ *     <li>POST /events/batch: an adaptive concurrency limit driven by batch latency per KB of body,
+ *     then a per-client token bucket (X-Client-Id header, else remote IP).</li>
+ *     <li>GET /events/**: its own adaptive limit, so reads never queue behind writes.</li>
+ * </ul>
+ * Shed requests get an immediate 429 with a Retry-After header.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10) // Shed before security and MVC do any work
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    private final double bucketCapacity;
+    private final double refillPerSecond;
+    private final AdaptiveConcurrencyLimiter writeLimiter;
+    private final AdaptiveConcurrencyLimiter readLimiter;
+
+    // Bounded so that a flood of distinct clients can't grow the map forever
+    private final Cache<String, TokenBucket> buckets = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .build();
+
+    @Autowired
+    public AdmissionControlFilter(@Value("${admission.ingest.bucket-capacity:20}") double bucketCapacity,
+                                  @Value("${admission.ingest.refill-per-second:10}") double refillPerSecond,
+                                  @Value("${admission.ingest.min-concurrency:1}") int writeMin,
+                                  @Value("${admission.ingest.initial-concurrency:4}") int writeInitial,
+                                  @Value("${admission.ingest.max-concurrency:8}") int writeMax,
+                                  @Value("${admission.ingest.latency-tolerance:2.0}") double writeTolerance,
+                                  @Value("${admission.read.min-concurrency:4}") int readMin,
+                                  @Value("${admission.read.initial-concurrency:32}") int readInitial,
+                                  @Value("${admission.read.max-concurrency:64}") int readMax,
+                                  @Value("${admission.read.latency-tolerance:2.0}") double readTolerance) {
+        this(bucketCapacity, refillPerSecond,
+                new AdaptiveConcurrencyLimiter(writeMin, writeInitial, writeMax, writeTolerance),
+                new AdaptiveConcurrencyLimiter(readMin, readInitial, readMax, readTolerance));
+    }
+
+    public AdmissionControlFilter(double bucketCapacity, double refillPerSecond,
+                                  AdaptiveConcurrencyLimiter writeLimiter, AdaptiveConcurrencyLimiter readLimiter) {
+        this.bucketCapacity = bucketCapacity;
+        this.refillPerSecond = refillPerSecond;
+        this.writeLimiter = writeLimiter;
+        this.readLimiter = readLimiter;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Leave the H2 console and anything else outside the API alone
+        return !request.getRequestURI().startsWith("/events");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean isWrite = HttpMethod.POST.matches(request.getMethod());
+
+        // 1. Adaptive concurrency limit, separate pools for reads and writes
+        AdaptiveConcurrencyLimiter limiter = isWrite ? writeLimiter : readLimiter;
+        if (!limiter.tryAcquire()) {
+            reject(response, TimeUnit.SECONDS.toNanos(1), "OVERLOADED");
+            return;
+        }
+
+        // 2. Per-client rate limit (ingest only). Checked second so that a request shed as
+        // OVERLOADED doesn't also spend the client's token budget.
+        if (isWrite) {
+            long now = System.nanoTime();
+            TokenBucket bucket = buckets.get(clientKey(request),
+                    key -> new TokenBucket(bucketCapacity, refillPerSecond, now));
+            long waitNanos = bucket.tryAcquire(now);
+            if (waitNanos > 0) {
+                limiter.releaseWithoutSample();
+                reject(response, waitNanos, "RATE_LIMITED");
+                return;
+            }
+        }
+
+        // Batch latency grows with batch size, so sample it per KB of body rather than per request
+        long units = isWrite ? Math.max(1, request.getContentLengthLong() / 1024) : 1;
+        long start = System.nanoTime();
+        boolean sample = false; // Whether this request says anything about load
+        boolean overloaded = false;
+        try {
+            chain.doFilter(request, response);
+            // No exception handler here, so most 500s are input errors; don't let them shrink the limit
+            sample = response.getStatus() < 500;
+        } catch (IOException | ServletException | RuntimeException e) {
+            // Bad input (e.g. an unparseable Instant) is the client's problem, not a load signal
+            overloaded = isOverloadError(e);
+            sample = overloaded;
+            throw e;
+        } finally {
+            // Always free the slot, even on an Error (OOM, StackOverflowError), or the limit leaks capacity
+            if (sample) {
+                limiter.release(System.nanoTime() - start, units, overloaded);
+            } else {
+                limiter.releaseWithoutSample();
+            }
+        }
+    }
+
+    // Errors that mean the DB is saturated, rather than that the request was bad
+    private boolean isOverloadError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CannotCreateTransactionException
+                    || cause instanceof CannotGetJdbcConnectionException
+                    || cause instanceof QueryTimeoutException
+                    || cause instanceof SQLTransientConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        String clientId = request.getHeader(CLIENT_ID_HEADER);
+        return (clientId != null && !clientId.isBlank()) ? clientId : request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, long waitNanos, String reason) throws IOException {
+        // Retry-After is in whole seconds, so always round up to at least 1
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"TOO_MANY_REQUESTS\",\"reason\":\"" + reason + "\"}");
+    }
+
+    public AdaptiveConcurrencyLimiter getWriteLimiter() {
+        return writeLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getReadLimiter() {
+        return readLimiter;
+    }
+}
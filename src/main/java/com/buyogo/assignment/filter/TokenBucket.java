@@ -0,0 +1,39 @@
+package com.buyogo.assignment.filter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} tokens, refilled continuously
+ * at {@code refillPerSecond}. One token is spent per request.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double capacity, double refillPerSecond, long nowNanos) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity; // New clients start with a full burst allowance
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Takes one token if available.
+     *
+     * @return 0 if the request is admitted, otherwise the nanos until a token is available
+     */
+    public synchronized long tryAcquire(long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = nowNanos;
+
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return 0;
+        }
+        return (long) Math.ceil((1.0 - tokens) / refillPerNano);
+    }
+}
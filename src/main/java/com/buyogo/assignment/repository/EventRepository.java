@@ -1,13 +1,16 @@
 package com.buyogo.assignment.repository;
 
 import com.buyogo.assignment.entity.MachineEvent;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface EventRepository extends JpaRepository<MachineEvent, Long> {
@@ -20,6 +23,15 @@ public interface EventRepository extends JpaRepository<MachineEvent, Long> {
     @Query("SELECT e FROM MachineEvent e WHERE e.machineId = :machineId AND e.eventTime >= :start AND e.eventTime < :end")
     List<MachineEvent> findEventsForStats(String machineId, Instant start, Instant end);
 
+    // Only used for the partial hours at the edges of a duration stats window
+    @Query("SELECT e.durationMs FROM MachineEvent e WHERE e.machineId = :machineId AND e.eventTime >= :start AND e.eventTime < :end")
+    List<Long> findDurationsForStats(String machineId, Instant start, Instant end);
+
+    // Rebuilds the duration sketches without loading whole entities; must be consumed inside a transaction
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("SELECT e.machineId, e.eventTime, e.durationMs FROM MachineEvent e WHERE e.eventTime >= :since")
+    Stream<Object[]> streamDurationsSince(Instant since);
+
     @Query("SELECT e.machineId, COUNT(e), SUM(CASE WHEN e.defectCount = -1 THEN 0 ELSE e.defectCount END) " +
             "FROM MachineEvent e " +
             "WHERE e.eventTime >= :start AND e.eventTime < :end " +
@@ -0,0 +1,159 @@
+package com.buyogo.assignment.service;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable duration sketch with log-spaced buckets (DDSketch-style). Every value
+ * maps to a bucket whose representative is within 1% of it, so any percentile read
+ * from the sketch is within 1% of the exact one. Merging two sketches just adds
+ * their counts, which is what lets per-bucket sketches be combined for any window.
+ * <p>
+ * Count and sum match the added values exactly as long as every {@link #remove} undoes
+ * an earlier {@link #add}; a remove with nothing to undo is reported back, not applied.
+ * Percentile values are approximate. Buckets are stored sparsely (sorted bucket index
+ * plus count, 12 bytes each) and dropped when they empty, since one machine's durations
+ * tend to cluster into a few dozen buckets. Not thread-safe; {@link DurationSketchStore}
+ * synchronizes access.
+ */
+public class DurationHistogram {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // Matches the ingest validation limit (6 hours); anything above lands in the last bucket
+    static final long MAX_DURATION_MS = 21_600_000;
+    private static final int MAX_INDEX = (int) Math.ceil(Math.log(MAX_DURATION_MS) / LOG_GAMMA);
+
+    // Non-empty buckets only: indexes[0..size) ascending, counts[i] belongs to indexes[i]
+    private int[] indexes = new int[0];
+    private long[] counts = new long[0];
+    private int size;
+    private long zeroCount; // durationMs = 0 has no logarithm, so it gets its own bucket
+    private long count;
+    private long sum;
+
+    private static int indexOf(long durationMs) {
+        return Math.min((int) Math.ceil(Math.log(durationMs) / LOG_GAMMA), MAX_INDEX);
+    }
+
+    public void add(long durationMs) {
+        if (durationMs <= 0) {
+            zeroCount++;
+        } else {
+            int index = indexOf(durationMs);
+            int slot = Arrays.binarySearch(indexes, 0, size, index);
+            if (slot < 0) {
+                slot = -slot - 1;
+                insertAt(slot, index);
+            }
+            counts[slot]++;
+        }
+        count++;
+        sum += Math.max(0, durationMs);
+    }
+
+    /**
+     * Undoes a previous {@link #add}, used when an event is updated.
+     *
+     * @return false if there was no matching value to remove, i.e. the sketch drifted from the DB
+     */
+    public boolean remove(long durationMs) {
+        if (durationMs <= 0) {
+            if (zeroCount == 0) {
+                return false;
+            }
+            zeroCount--;
+        } else {
+            int slot = Arrays.binarySearch(indexes, 0, size, indexOf(durationMs));
+            if (slot < 0) {
+                return false;
+            }
+            if (--counts[slot] == 0) {
+                removeAt(slot);
+            }
+        }
+        count--;
+        sum -= Math.max(0, durationMs);
+        return true;
+    }
+
+    public void merge(DurationHistogram other) {
+        if (other.size > 0) {
+            // Both sides are sorted, so a single merge pass produces the combined buckets
+            int[] mergedIndexes = new int[size + other.size];
+            long[] mergedCounts = new long[size + other.size];
+            int i = 0, j = 0, n = 0;
+            while (i < size || j < other.size) {
+                if (j == other.size || (i < size && indexes[i] < other.indexes[j])) {
+                    mergedIndexes[n] = indexes[i];
+                    mergedCounts[n++] = counts[i++];
+                } else if (i == size || other.indexes[j] < indexes[i]) {
+                    mergedIndexes[n] = other.indexes[j];
+                    mergedCounts[n++] = other.counts[j++];
+                } else {
+                    mergedIndexes[n] = indexes[i];
+                    mergedCounts[n++] = counts[i++] + other.counts[j++];
+                }
+            }
+            indexes = mergedIndexes;
+            counts = mergedCounts;
+            size = n;
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+    }
+
+    /**
+     * @param quantile 0.0 - 1.0 (e.g. 0.99 for p99)
+     * @return the approximate duration at that quantile, or 0 if the sketch is empty
+     */
+    public long quantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        // Same rank convention as DDSketch: the value at position q * (n - 1) in sorted order
+        long rank = (long) (quantile * (count - 1));
+
+        long seen = zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+        for (int i = 0; i < size; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                // Bucket k holds (gamma^(k-1), gamma^k]; this representative is within 1% of both ends
+                return Math.round(2 * Math.pow(GAMMA, indexes[i]) / (GAMMA + 1));
+            }
+        }
+        return MAX_DURATION_MS;
+    }
+
+    private void insertAt(int slot, int index) {
+        if (size == indexes.length) {
+            int capacity = Math.max(4, size + (size >> 1));
+            indexes = Arrays.copyOf(indexes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(indexes, slot, indexes, slot + 1, size - slot);
+        System.arraycopy(counts, slot, counts, slot + 1, size - slot);
+        indexes[slot] = index;
+        counts[slot] = 0;
+        size++;
+    }
+
+    private void removeAt(int slot) {
+        System.arraycopy(indexes, slot + 1, indexes, slot, size - slot - 1);
+        System.arraycopy(counts, slot + 1, counts, slot, size - slot - 1);
+        size--;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+}
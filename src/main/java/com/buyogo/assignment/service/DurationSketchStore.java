@@ -0,0 +1,196 @@
+package com.buyogo.assignment.service;
+
+import com.buyogo.assignment.repository.EventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * One {@link DurationHistogram} per machine per hour, kept up to date by processBatch.
+ * Duration stats for a window merge the hourly sketches it fully covers instead of
+ * loading and sorting every raw row. Only the last {@code duration-sketch.retention}
+ * is kept in memory; older windows are answered from raw rows. Hours without events
+ * and machines without any retained hour hold no memory.
+ * <p>
+ * Concurrent updates of the same event can't both remove its old duration: MachineEvent is
+ * versioned and processBatch retries the batch that lost. A removal that still finds
+ * nothing to undo is logged and counted in {@link #getDriftCount()} but not repaired
+ * while the app runs; only {@link #rebuild()} at startup re-reads the table.
+ */
+@Slf4j
+@Component
+public class DurationSketchStore {
+
+    public static final Duration BUCKET = Duration.ofHours(1);
+    private static final long BUCKET_SECONDS = BUCKET.getSeconds();
+
+    // A single event entering (+) or leaving (-) a machine's sketch
+    public record Delta(String machineId, Instant eventTime, long durationMs, boolean added) {}
+
+    private final EventRepository repository;
+    private final Duration retention;
+
+    // machineId -> (bucket start epoch second -> sketch)
+    private final Map<String, NavigableMap<Long, DurationHistogram>> sketches = new ConcurrentHashMap<>();
+
+    // Removals that found nothing to undo since the last rebuild/clear
+    private final AtomicLong driftCount = new AtomicLong();
+
+    // Highest cutoff expired hours have been pruned up to
+    private final AtomicLong prunedUpTo = new AtomicLong(Long.MIN_VALUE);
+
+    public DurationSketchStore(EventRepository repository,
+                               @Value("${duration-sketch.retention:7d}") Duration retention) {
+        this.repository = repository;
+        this.retention = retention;
+    }
+
+    /**
+     * Seeds the sketches from whatever is already stored (empty for the in-memory DB).
+     * Streams a (machineId, eventTime, durationMs) projection limited to the retention,
+     * so startup doesn't load the whole table into the heap.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        clear();
+        long cutoff = pruneCutoff();
+        try (Stream<Object[]> rows = repository.streamDurationsSince(Instant.ofEpochSecond(cutoff))) {
+            rows.forEach(row -> applyNow(new Delta(
+                    (String) row[0], (Instant) row[1], ((Number) row[2]).longValue(), true), cutoff));
+        }
+    }
+
+    /**
+     * Applies the deltas of a batch. Inside a transaction they are applied only after
+     * commit, so a rolled-back batch never shows up in the percentiles.
+     */
+    public void apply(Collection<Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applyAll(deltas);
+                }
+            });
+        } else {
+            applyAll(deltas);
+        }
+    }
+
+    private void applyAll(Collection<Delta> deltas) {
+        long cutoff = pruneCutoff();
+        deltas.forEach(delta -> applyNow(delta, cutoff));
+        // Drop expired hours so the heap stays bounded by retention, not by uptime. The cutoff
+        // only moves once per bucket, so the walk over every machine happens hourly, not per batch.
+        if (prunedUpTo.getAndAccumulate(cutoff, Math::max) < cutoff) {
+            for (String machineId : sketches.keySet()) {
+                sketches.computeIfPresent(machineId, (id, machineSketches) -> {
+                    machineSketches.headMap(cutoff).clear();
+                    return machineSketches.isEmpty() ? null : machineSketches;
+                });
+            }
+        }
+    }
+
+    private void applyNow(Delta delta, long cutoff) {
+        long bucket = bucketOf(delta.eventTime());
+        if (bucket < cutoff) {
+            return; // Late event for an expired hour; queries read those from raw rows
+        }
+        // Per-machine compute, so emptied sketches and machines can be dropped without racing an add
+        sketches.compute(delta.machineId(), (id, machineSketches) -> {
+            NavigableMap<Long, DurationHistogram> target =
+                    machineSketches != null ? machineSketches : new ConcurrentSkipListMap<>();
+            DurationHistogram sketch = target.computeIfAbsent(bucket, b -> new DurationHistogram());
+            synchronized (sketch) {
+                if (delta.added()) {
+                    sketch.add(delta.durationMs());
+                } else if (!sketch.remove(delta.durationMs())) {
+                    driftCount.incrementAndGet();
+                    log.warn("Duration sketch drift: no {} ms value to remove for machine {} at {}",
+                            delta.durationMs(), delta.machineId(), delta.eventTime());
+                }
+                if (sketch.getCount() == 0) {
+                    target.remove(bucket);
+                }
+            }
+            return target.isEmpty() ? null : target;
+        });
+    }
+
+    /**
+     * Merges the sketches of every bucket in [from, to). Both bounds must be bucket-aligned.
+     */
+    public DurationHistogram merge(String machineId, Instant from, Instant to) {
+        DurationHistogram merged = new DurationHistogram();
+        NavigableMap<Long, DurationHistogram> machineSketches = sketches.get(machineId);
+        if (machineSketches == null) {
+            return merged;
+        }
+        for (DurationHistogram sketch : machineSketches.subMap(from.getEpochSecond(), true, to.getEpochSecond(), false).values()) {
+            synchronized (sketch) {
+                merged.merge(sketch);
+            }
+        }
+        return merged;
+    }
+
+    /** Oldest bucket that queries may take from the sketches; anything earlier must come from raw rows. */
+    public Instant retainedFrom() {
+        return ceilToBucket(Instant.now().minus(retention));
+    }
+
+    // Pruning lags retainedFrom() by one bucket, so a query that just read retainedFrom()
+    // still finds all of its buckets while it merges them
+    private long pruneCutoff() {
+        return bucketOf(Instant.now().minus(retention).minus(BUCKET));
+    }
+
+    // Number of machine-hour sketches currently held
+    int size() {
+        return sketches.values().stream().mapToInt(Map::size).sum();
+    }
+
+    public long getDriftCount() {
+        return driftCount.get();
+    }
+
+    public void clear() {
+        sketches.clear();
+        driftCount.set(0);
+        prunedUpTo.set(Long.MIN_VALUE);
+    }
+
+    private static long bucketOf(Instant eventTime) {
+        return Math.floorDiv(eventTime.getEpochSecond(), BUCKET_SECONDS) * BUCKET_SECONDS;
+    }
+
+    /** First bucket boundary at or after the given instant. */
+    public static Instant ceilToBucket(Instant instant) {
+        Instant floor = floorToBucket(instant);
+        return floor.equals(instant) ? floor : floor.plus(BUCKET);
+    }
+
+    public static Instant floorToBucket(Instant instant) {
+        return Instant.ofEpochSecond(bucketOf(instant));
+    }
+}
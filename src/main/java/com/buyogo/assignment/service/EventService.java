@@ -5,8 +5,9 @@ import com.buyogo.assignment.dto.EventInput;
 import com.buyogo.assignment.entity.MachineEvent;
 import com.buyogo.assignment.repository.EventRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -18,10 +19,29 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class EventService {
 
+    // A batch that loses an update race to another batch is re-read and replayed this many times
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+
     private final EventRepository repository;
+    private final StatsQueryCache statsCache;
+    private final DurationSketchStore durationSketches;
+    private final TransactionTemplate transactionTemplate;
 
-    @Transactional
     public BatchSummary processBatch(List<EventInput> inputs) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> processBatchOnce(inputs));
+            } catch (ObjectOptimisticLockingFailureException e) {
+                // Another batch updated one of our events after we read it. Our transaction rolled
+                // back, so none of its cache or sketch changes were applied; start from fresh rows.
+                if (attempt >= MAX_BATCH_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private BatchSummary processBatchOnce(List<EventInput> inputs) {
         int accepted = 0;
         int deduped = 0;
         int updated = 0;
@@ -46,6 +66,10 @@ public class EventService {
         List<MachineEvent> toSave = new ArrayList<>();
         // Set to track IDs we've processed in this batch to handle intra-batch duplicates
         Set<String> processedInBatch = new HashSet<>();
+        // Machine/time pairs touched by this batch, used to evict cached stats windows
+        List<StatsQueryCache.Touch> touches = new ArrayList<>();
+        // Per-machine duration sketch changes, applied once the batch commits
+        List<DurationSketchStore.Delta> durationDeltas = new ArrayList<>();
 
         for (EventInput input : inputs) {
             // --- Validation Logic ---
@@ -83,6 +107,13 @@ public class EventService {
                     if (existing.getReceivedTime().isAfter(now)) {
                         deduped++;
                     } else {
+                        // Old and new position both leave their windows stale
+                        touches.add(new StatsQueryCache.Touch(existing.getMachineId(), existing.getEventTime()));
+                        touches.add(new StatsQueryCache.Touch(input.machineId(), input.eventTime()));
+                        durationDeltas.add(new DurationSketchStore.Delta(
+                                existing.getMachineId(), existing.getEventTime(), existing.getDurationMs(), false));
+                        durationDeltas.add(new DurationSketchStore.Delta(
+                                input.machineId(), input.eventTime(), input.durationMs(), true));
                         updateEventInMemory(existing, input, now);
                         // Add to save list only if not already added (avoid duplicates in list)
                         if (!processedInBatch.contains(existing.getEventId())) {
@@ -100,6 +131,9 @@ public class EventService {
 
                 toSave.add(newEvent);
                 processedInBatch.add(newEvent.getEventId());
+                touches.add(new StatsQueryCache.Touch(newEvent.getMachineId(), newEvent.getEventTime()));
+                durationDeltas.add(new DurationSketchStore.Delta(
+                        newEvent.getMachineId(), newEvent.getEventTime(), newEvent.getDurationMs(), true));
                 accepted++;
             }
         }
@@ -109,6 +143,10 @@ public class EventService {
             repository.saveAll(toSave);
         }
 
+        // 4. Evict only the cached stats windows this batch actually changed
+        statsCache.invalidate(touches);
+        durationSketches.apply(durationDeltas);
+
         return BatchSummary.builder()
                 .accepted(accepted)
                 .deduped(deduped)
@@ -138,6 +176,10 @@ public class EventService {
     }
 
     public com.buyogo.assignment.dto.StatsResponse getStats(String machineId, Instant start, Instant end) {
+        return statsCache.getStats(machineId, start, end, () -> computeStats(machineId, start, end));
+    }
+
+    private com.buyogo.assignment.dto.StatsResponse computeStats(String machineId, Instant start, Instant end) {
         // 1. Fetch valid events in the time window (Start Inclusive, End Exclusive)
         List<MachineEvent> events = repository.findEventsForStats(machineId, start, end);
 
@@ -178,7 +220,63 @@ public class EventService {
                 .build();
     }
 
+    public com.buyogo.assignment.dto.DurationStatsResponse getDurationStats(String machineId, Instant start, Instant end) {
+        // 1. Merge the hourly sketches fully inside the window (no raw rows needed).
+        // Hours older than the sketch retention are treated like the leading edge below.
+        Instant firstFullHour = DurationSketchStore.ceilToBucket(start);
+        Instant retainedFrom = durationSketches.retainedFrom();
+        if (firstFullHour.isBefore(retainedFrom)) {
+            firstFullHour = retainedFrom;
+        }
+        Instant lastFullHour = DurationSketchStore.floorToBucket(end);
+
+        DurationHistogram histogram;
+        if (firstFullHour.isBefore(lastFullHour)) {
+            histogram = durationSketches.merge(machineId, firstFullHour, lastFullHour);
+            // 2. Partial (or expired) hours at either edge come straight from the DB (Start Inclusive, End Exclusive)
+            if (start.isBefore(firstFullHour)) {
+                repository.findDurationsForStats(machineId, start, firstFullHour).forEach(histogram::add);
+            }
+            if (lastFullHour.isBefore(end)) {
+                repository.findDurationsForStats(machineId, lastFullHour, end).forEach(histogram::add);
+            }
+        } else {
+            // No full hour inside the window: just read the raw rows
+            histogram = new DurationHistogram();
+            repository.findDurationsForStats(machineId, start, end).forEach(histogram::add);
+        }
+
+        // 3. Totals and utilization
+        long eventsCount = histogram.getCount();
+        long totalDurationMs = histogram.getSum();
+        double avgDurationMs = (eventsCount == 0) ? 0.0 : (double) totalDurationMs / eventsCount;
+
+        long windowMs = java.time.Duration.between(start, end).toMillis();
+        double utilization = (windowMs <= 0) ? 0.0 : (double) totalDurationMs / windowMs;
+
+        return com.buyogo.assignment.dto.DurationStatsResponse.builder()
+                .machineId(machineId)
+                .start(start.toString())
+                .end(end.toString())
+                .eventsCount(eventsCount)
+                .totalDurationMs(totalDurationMs)
+                .avgDurationMs(Double.parseDouble(String.format("%.2f", avgDurationMs)))
+                .utilization(Double.parseDouble(String.format("%.4f", utilization)))
+                .p50DurationMs(histogram.quantile(0.50))
+                .p95DurationMs(histogram.quantile(0.95))
+                .p99DurationMs(histogram.quantile(0.99))
+                .build();
+    }
+
     public List<com.buyogo.assignment.dto.TopDefectLineResponse> getTopDefectLines(Instant start, Instant end, int limit) {
+        return statsCache.getTopDefectLines(start, end, limit, () -> computeTopDefectLines(start, end, limit));
+    }
+
+    public com.buyogo.assignment.dto.CacheMetricsResponse getCacheMetrics() {
+        return statsCache.metrics();
+    }
+
+    private List<com.buyogo.assignment.dto.TopDefectLineResponse> computeTopDefectLines(Instant start, Instant end, int limit) {
         List<Object[]> results = repository.findTopDefects(start, end);
 
         return results.stream()
@@ -198,6 +296,6 @@ public class EventService {
                             .defectsPercent(Double.parseDouble(String.format("%.2f", defectPercent)))
                             .build();
                 })
-                .collect(java.util.stream.Collectors.toList());
+                .collect(java.util.stream.Collectors.toUnmodifiableList()); // Shared via the cache
     }
 }
@@ -0,0 +1,317 @@
+package com.buyogo.assignment.service;
+
+import com.buyogo.assignment.dto.CacheMetricsResponse;
+import com.buyogo.assignment.dto.StatsResponse;
+import com.buyogo.assignment.dto.TopDefectLineResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded result cache for the read endpoints (/stats and /stats/top-defect-lines).
+ * Caffeine evicts by size (W-TinyLFU) and TTL; writes from processBatch evict only the
+ * entries whose machine and window contain the touched eventTime.
+ */
+@Component
+public class StatsQueryCache {
+
+    // The eventTimes written by a batch, as seen by the cached windows
+    private interface Writes {
+        boolean affects(String machineId, Instant start, Instant end);
+
+        boolean affects(Instant start, Instant end);
+    }
+
+    private interface WindowKey {
+        boolean affectedBy(Writes writes);
+    }
+
+    record StatsKey(String machineId, Instant start, Instant end) implements WindowKey {
+        @Override
+        public boolean affectedBy(Writes writes) {
+            return writes.affects(machineId, start, end);
+        }
+    }
+
+    record TopDefectKey(Instant start, Instant end, int limit) implements WindowKey {
+        @Override
+        public boolean affectedBy(Writes writes) {
+            // Top defect lines aggregate every machine, so only the window matters
+            return writes.affects(start, end);
+        }
+    }
+
+    // A (machineId, eventTime) pair whose windows must be evicted after a write
+    public record Touch(String machineId, Instant eventTime) {}
+
+    // Every touched time of one batch, grouped for O(log n) lookups. Only lives for the eviction scan.
+    record BatchWrites(Map<String, NavigableSet<Instant>> timesByMachine,
+                       NavigableSet<Instant> allTimes) implements Writes {
+
+        @Override
+        public boolean affects(String machineId, Instant start, Instant end) {
+            return overlaps(timesByMachine.get(machineId), start, end);
+        }
+
+        @Override
+        public boolean affects(Instant start, Instant end) {
+            return overlaps(allTimes, start, end);
+        }
+    }
+
+    // Earliest and latest touched eventTime, both inclusive
+    record Range(Instant min, Instant max) {
+        boolean overlaps(Instant start, Instant end) {
+            return min.isBefore(end) && !max.isBefore(start);
+        }
+    }
+
+    // One committed batch (or invalidateAll) as kept in the log: a time range per machine
+    // instead of every instant, so an entry stays small whatever the batch size. A gap
+    // inside a range can only make a reader skip caching once, never serve stale data.
+    record Invalidation(long sequence, Map<String, Range> rangeByMachine, Range allRange,
+                        boolean everything) implements Writes {
+
+        @Override
+        public boolean affects(String machineId, Instant start, Instant end) {
+            Range range = rangeByMachine.get(machineId);
+            return everything || (range != null && range.overlaps(start, end));
+        }
+
+        @Override
+        public boolean affects(Instant start, Instant end) {
+            return everything || (allRange != null && allRange.overlaps(start, end));
+        }
+    }
+
+    // Handed to waiting readers when the loader's result may predate a write they should see
+    private static final Object STALE = new Object();
+
+    // Upper bound on the log while readers are in flight; normally it is trimmed much sooner
+    private static final int RECENT_INVALIDATIONS = 1024;
+
+    private final Cache<StatsKey, StatsResponse> statsCache;
+    private final Cache<TopDefectKey, List<TopDefectLineResponse>> topDefectCache;
+
+    // One running query per cached window; concurrent misses for the same key wait on it
+    private final Map<WindowKey, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    // Recent invalidations, so a reader that queried the DB while a batch committed can tell
+    // whether that batch touched its window (other machines/windows don't block caching)
+    private final AtomicLong sequence = new AtomicLong();
+    private final Deque<Invalidation> recent = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger recentCount = new AtomicInteger();
+    private final AtomicLong trimmedUpTo = new AtomicLong();
+
+    // Sequence each in-flight reader started at -> number of such readers. Log entries at or
+    // below the oldest of these can't matter to anyone and are dropped.
+    private final ConcurrentSkipListMap<Long, Integer> readers = new ConcurrentSkipListMap<>();
+
+    public StatsQueryCache(@Value("${stats-cache.max-size:10000}") long maxSize,
+                           @Value("${stats-cache.ttl:PT10M}") Duration ttl) {
+        this.statsCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.topDefectCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    public StatsResponse getStats(String machineId, Instant start, Instant end, Supplier<StatsResponse> loader) {
+        return getOrLoad(statsCache, new StatsKey(machineId, start, end), loader);
+    }
+
+    public List<TopDefectLineResponse> getTopDefectLines(Instant start, Instant end, int limit,
+                                                         Supplier<List<TopDefectLineResponse>> loader) {
+        return getOrLoad(topDefectCache, new TopDefectKey(start, end, limit), loader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K extends WindowKey, V> V getOrLoad(Cache<K, V> cache, K key, Supplier<V> loader) {
+        while (true) {
+            V cached = cache.getIfPresent(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            // 1. Someone is already querying this window: wait for their result instead of
+            // sending the same aggregation to the DB again
+            CompletableFuture<Object> load = new CompletableFuture<>();
+            CompletableFuture<Object> running = loading.putIfAbsent(key, load);
+            if (running != null) {
+                Object result = await(running);
+                if (result != STALE) {
+                    return (V) result;
+                }
+                continue; // Their result raced a write we may have to see, so load again
+            }
+
+            // 2. We are the loader for this key
+            long seen = sequence.get();
+            readers.merge(seen, 1, Integer::sum);
+            try {
+                V value = loader.get();
+                cache.put(key, value);
+                // A batch that committed during our query may have run its eviction before our put.
+                // Its invalidation is published before it evicts, so re-checking after the put
+                // guarantees one of the two sides removes the stale entry.
+                boolean stale = invalidatedSince(key, seen);
+                if (stale) {
+                    cache.asMap().remove(key, value);
+                }
+                load.complete(stale ? STALE : value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                load.completeExceptionally(e);
+                throw e;
+            } finally {
+                loading.remove(key, load);
+                readers.computeIfPresent(seen, (start, count) -> count == 1 ? null : count - 1);
+            }
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            // Fail the same way the loader did
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private boolean invalidatedSince(WindowKey key, long seen) {
+        // Newest first, stopping at the first entry our query already saw
+        Iterator<Invalidation> newestFirst = recent.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Invalidation invalidation = newestFirst.next();
+            if (invalidation.sequence() <= seen) {
+                break;
+            }
+            if (key.affectedBy(invalidation)) {
+                return true;
+            }
+        }
+        // Checked last: if the log was trimmed past our start we can't tell, so assume stale
+        return trimmedUpTo.get() > seen;
+    }
+
+    /**
+     * Evicts every cached window affected by the given writes. Inside a transaction the
+     * eviction runs after commit, so the DB connection isn't held while the cache is scanned.
+     */
+    public void invalidate(Collection<Touch> touches) {
+        if (touches.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(touches);
+                }
+            });
+        } else {
+            evict(touches);
+        }
+    }
+
+    private void evict(Collection<Touch> touches) {
+        // Group once so each cached key is a couple of O(log n) lookups, not a scan of the batch
+        Map<String, NavigableSet<Instant>> timesByMachine = new HashMap<>();
+        NavigableSet<Instant> allTimes = new TreeSet<>();
+        for (Touch touch : touches) {
+            timesByMachine.computeIfAbsent(touch.machineId(), id -> new TreeSet<>()).add(touch.eventTime());
+            allTimes.add(touch.eventTime());
+        }
+
+        Map<String, Range> rangeByMachine = new HashMap<>();
+        timesByMachine.forEach((machineId, times) -> rangeByMachine.put(machineId, new Range(times.first(), times.last())));
+        publish(rangeByMachine, new Range(allTimes.first(), allTimes.last()), false);
+
+        BatchWrites writes = new BatchWrites(timesByMachine, allTimes);
+        statsCache.asMap().keySet().removeIf(key -> key.affectedBy(writes));
+        topDefectCache.asMap().keySet().removeIf(key -> key.affectedBy(writes));
+    }
+
+    private void publish(Map<String, Range> rangeByMachine, Range allRange, boolean everything) {
+        synchronized (recent) {
+            // Numbered and appended under the lock, so the log is always in sequence order
+            recent.addLast(new Invalidation(sequence.incrementAndGet(), rangeByMachine, allRange, everything));
+            recentCount.incrementAndGet();
+            Map.Entry<Long, Integer> oldestReader = readers.firstEntry();
+            long neededAfter = oldestReader != null ? oldestReader.getKey() : Long.MAX_VALUE;
+            Invalidation first;
+            while ((first = recent.peekFirst()) != null
+                    && (first.sequence() <= neededAfter || recentCount.get() > RECENT_INVALIDATIONS)) {
+                // Raise the watermark before dropping, so readers never miss an entry silently
+                trimmedUpTo.accumulateAndGet(first.sequence(), Math::max);
+                recent.pollFirst();
+                recentCount.decrementAndGet();
+            }
+        }
+    }
+
+    // Same boundaries as the queries: start inclusive, end exclusive
+    private static boolean overlaps(NavigableSet<Instant> eventTimes, Instant start, Instant end) {
+        if (eventTimes == null) {
+            return false;
+        }
+        Instant first = eventTimes.ceiling(start);
+        return first != null && first.isBefore(end);
+    }
+
+    public void invalidateAll() {
+        publish(Map.of(), null, true);
+        statsCache.invalidateAll();
+        topDefectCache.invalidateAll();
+    }
+
+    public CacheMetricsResponse metrics() {
+        CacheStats stats = statsCache.stats();
+        CacheStats topDefect = topDefectCache.stats();
+        return CacheMetricsResponse.builder()
+                .statsSize(statsCache.estimatedSize())
+                .statsHitCount(stats.hitCount())
+                .statsMissCount(stats.missCount())
+                .statsHitRate(stats.hitRate())
+                .topDefectSize(topDefectCache.estimatedSize())
+                .topDefectHitCount(topDefect.hitCount())
+                .topDefectMissCount(topDefect.missCount())
+                .topDefectHitRate(topDefect.hitRate())
+                .build();
+    }
+}
@@ -0,0 +1,177 @@
+package com.buyogo.assignment.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlFilterTest {
+
+    private MockHttpServletResponse send(AdmissionControlFilter filter, String method, String uri, String clientId)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        if (clientId != null) {
+            request.addHeader(AdmissionControlFilter.CLIENT_ID_HEADER, clientId);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> {}); // Downstream always succeeds
+        return response;
+    }
+
+    // --- Per-client token bucket: burst allowance, then 429 with Retry-After ---
+    @Test
+    void testClientOverBudgetGets429() throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(2, 0.5,
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0),
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0));
+
+        assertEquals(200, send(filter, "POST", "/events/batch", "GW-1").getStatus());
+        assertEquals(200, send(filter, "POST", "/events/batch", "GW-1").getStatus());
+
+        MockHttpServletResponse shed = send(filter, "POST", "/events/batch", "GW-1");
+        assertEquals(429, shed.getStatus());
+        assertEquals("2", shed.getHeader("Retry-After")); // 0.5 tokens/s -> next token in 2s
+        assertTrue(shed.getContentAsString().contains("RATE_LIMITED"));
+
+        // Other gateways have their own bucket
+        assertEquals(200, send(filter, "POST", "/events/batch", "GW-2").getStatus());
+    }
+
+    // --- Reads use a separate limit, so saturated writes don't block stats ---
+    @Test
+    void testReadsAdmittedWhileWritesSaturated() throws Exception {
+        AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0);
+        AdmissionControlFilter filter = new AdmissionControlFilter(100, 100, writeLimiter,
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0));
+
+        assertTrue(writeLimiter.tryAcquire()); // Simulate a batch that is still running
+
+        MockHttpServletResponse shed = send(filter, "POST", "/events/batch", "GW-1");
+        assertEquals(429, shed.getStatus());
+        assertEquals("1", shed.getHeader("Retry-After"));
+        assertTrue(shed.getContentAsString().contains("OVERLOADED"));
+
+        assertEquals(200, send(filter, "GET", "/events/stats", null).getStatus());
+    }
+
+    // --- Requests shed as OVERLOADED don't spend the client's rate-limit budget ---
+    @Test
+    void testOverloadSheddingKeepsTokens() throws Exception {
+        AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0);
+        AdmissionControlFilter filter = new AdmissionControlFilter(2, 0.01, writeLimiter,
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0));
+
+        assertTrue(writeLimiter.tryAcquire()); // Another batch holds the only slot
+        for (int i = 0; i < 5; i++) {
+            assertTrue(send(filter, "POST", "/events/batch", "GW-1").getContentAsString().contains("OVERLOADED"));
+        }
+        writeLimiter.releaseWithoutSample();
+
+        // Full burst allowance is still there once capacity frees up
+        assertEquals(200, send(filter, "POST", "/events/batch", "GW-1").getStatus());
+        assertEquals(200, send(filter, "POST", "/events/batch", "GW-1").getStatus());
+        assertEquals(429, send(filter, "POST", "/events/batch", "GW-1").getStatus());
+        assertEquals(0, writeLimiter.getInFlight());
+    }
+
+    // --- Gradient: latency well above the baseline shrinks the limit, recovery grows it back ---
+    @Test
+    void testLimiterAdaptsToLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 16, 2.0);
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+
+        for (int i = 0; i < 50; i++) {
+            // Establish the baseline
+            assertTrue(limiter.tryAcquire());
+            limiter.release(fast, 1, false);
+        }
+        assertEquals(8, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(slow, 1, false);
+        }
+        int backedOff = limiter.getLimit();
+        assertTrue(backedOff < 8, "limit should shrink under slow responses, was " + backedOff);
+
+        for (int round = 0; round < 20; round++) {
+            // Fill the current limit, then complete every request quickly
+            int admitted = 0;
+            while (limiter.tryAcquire()) {
+                admitted++;
+            }
+            for (int i = 0; i < admitted; i++) {
+                limiter.release(fast, 1, false);
+            }
+        }
+        assertTrue(limiter.getLimit() > backedOff, "limit should recover once latency is back to baseline");
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    // --- Big batches take longer but aren't load: latency is normalized by request size ---
+    @Test
+    void testLargeBatchesDoNotShrinkLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0);
+
+        for (int i = 0; i < 200; i++) {
+            // Alternate 10 KB batches taking 10 ms with 1000 KB batches taking 900 ms
+            assertTrue(limiter.tryAcquire());
+            boolean large = i % 2 == 0;
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(large ? 900 : 10), large ? 1000 : 10, false);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    // --- Client input errors free the slot without touching the shared limit ---
+    @Test
+    void testOnlyOverloadErrorsShrinkLimit() throws Exception {
+        AdaptiveConcurrencyLimiter readLimiter = new AdaptiveConcurrencyLimiter(1, 8, 16, 2.0);
+        AdmissionControlFilter filter = new AdmissionControlFilter(100, 100,
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0), readLimiter);
+
+        for (int i = 0; i < 10; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/events/stats");
+            assertThrows(DateTimeParseException.class, () -> filter.doFilter(request, new MockHttpServletResponse(),
+                    (req, res) -> Instant.parse("not-a-date")));
+
+            MockHttpServletResponse errorResponse = new MockHttpServletResponse();
+            filter.doFilter(new MockHttpServletRequest("GET", "/events/stats"), errorResponse,
+                    (req, res) -> ((MockHttpServletResponse) res).setStatus(500));
+        }
+        assertEquals(8, readLimiter.getLimit());
+        assertEquals(0, readLimiter.getInFlight());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/events/stats");
+        assertThrows(CannotCreateTransactionException.class, () -> filter.doFilter(request, new MockHttpServletResponse(),
+                (req, res) -> {
+                    throw new CannotCreateTransactionException("Connection pool exhausted");
+                }));
+        assertTrue(readLimiter.getLimit() < 8, "pool exhaustion should shrink the limit");
+        assertEquals(0, readLimiter.getInFlight());
+    }
+
+    // --- An Error thrown downstream still frees the slot ---
+    @Test
+    void testErrorReleasesSlot() {
+        AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0);
+        AdmissionControlFilter filter = new AdmissionControlFilter(100, 100, writeLimiter,
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0));
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(StackOverflowError.class, () -> filter.doFilter(
+                    new MockHttpServletRequest("POST", "/events/batch"), new MockHttpServletResponse(),
+                    (req, res) -> {
+                        throw new StackOverflowError();
+                    }));
+        }
+        assertEquals(0, writeLimiter.getInFlight());
+        assertEquals(1, writeLimiter.getLimit());
+    }
+}
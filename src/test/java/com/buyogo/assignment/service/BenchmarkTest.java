@@ -2,15 +2,29 @@ package com.buyogo.assignment.service;
 
 import com.buyogo.assignment.dto.BatchSummary;
 import com.buyogo.assignment.dto.EventInput;
+import com.buyogo.assignment.filter.AdaptiveConcurrencyLimiter;
+import com.buyogo.assignment.filter.AdmissionControlFilter;
 import com.buyogo.assignment.repository.EventRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SpringBootTest
 public class BenchmarkTest {
@@ -21,9 +35,17 @@ public class BenchmarkTest {
     @Autowired
     private EventRepository repository;
 
+    @Autowired
+    private StatsQueryCache statsCache;
+
+    @Autowired
+    private DurationSketchStore durationSketches;
+
     @BeforeEach
     void setup() {
         repository.deleteAll(); // Ensure DB is clean before benchmark
+        statsCache.invalidateAll();
+        durationSketches.clear(); // deleteAll() bypasses processBatch, so the sketches must go too
     }
 
     @Test
@@ -63,4 +85,211 @@ public class BenchmarkTest {
             throw new AssertionError("Benchmark FAILED: Took " + duration + "ms, expected < 1000ms");
         }
     }
+
+    @Test
+    public void benchmarkStatsReadWriteMix() {
+        int machines = 20;
+        int hours = 24;
+        int operations = 5_000;
+        int readsPerWrite = 9; // Dashboards poll far more often than gateways flush
+        Instant dayStart = Instant.now().truncatedTo(ChronoUnit.DAYS).minus(1, ChronoUnit.DAYS);
+        Random random = new Random(42);
+
+        // 1. Seed one day of history: 20 machines x 24 hours x 10 events
+        List<EventInput> seed = new ArrayList<>();
+        for (int m = 0; m < machines; m++) {
+            for (int h = 0; h < hours; h++) {
+                for (int k = 0; k < 10; k++) {
+                    seed.add(new EventInput("SEED-" + m + "-" + h + "-" + k,
+                            dayStart.plus(h, ChronoUnit.HOURS).plusSeconds(k * 60L),
+                            "M-" + m, 1000, random.nextInt(5)));
+                }
+            }
+        }
+        eventService.processBatch(seed);
+
+        // 2. Mixed workload: dashboards read any hourly window, gateways write small batches
+        long readNanos = 0;
+        int reads = 0;
+        int writes = 0;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < operations; i++) {
+            int hour = random.nextInt(hours);
+            Instant from = dayStart.plus(hour, ChronoUnit.HOURS);
+            Instant to = from.plus(1, ChronoUnit.HOURS);
+
+            if (i % (readsPerWrite + 1) == 0) {
+                // New events always land in the latest (still open) hour
+                Instant liveHour = dayStart.plus(hours - 1, ChronoUnit.HOURS);
+                List<EventInput> batch = new ArrayList<>();
+                for (int k = 0; k < 10; k++) {
+                    batch.add(new EventInput("MIX-" + i + "-" + k, liveHour.plusSeconds(random.nextInt(3600)),
+                            "M-" + random.nextInt(machines), 1000, random.nextInt(5)));
+                }
+                eventService.processBatch(batch);
+                writes++;
+            } else {
+                long t0 = System.nanoTime();
+                if (random.nextBoolean()) {
+                    eventService.getStats("M-" + random.nextInt(machines), from, to);
+                } else {
+                    eventService.getTopDefectLines(from, to, 10);
+                }
+                readNanos += System.nanoTime() - t0;
+                reads++;
+            }
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        var metrics = eventService.getCacheMetrics();
+        System.out.println("==================================================");
+        System.out.println("STATS CACHE BENCHMARK (" + readsPerWrite + ":1 read:write)");
+        System.out.println("Reads: " + reads + ", Write batches: " + writes);
+        System.out.println("Total Time: " + duration + " ms");
+        System.out.printf("Avg Read Latency: %.3f ms%n", readNanos / 1_000_000.0 / reads);
+        System.out.printf("Stats Hit Rate: %.2f%%%n", metrics.getStatsHitRate() * 100);
+        System.out.printf("Top Defect Hit Rate: %.2f%%%n", metrics.getTopDefectHitRate() * 100);
+        System.out.println("==================================================");
+
+        // Repeated closed windows should mostly be served from the cache
+        if (metrics.getStatsHitRate() < 0.5) {
+            throw new AssertionError("Benchmark FAILED: stats hit rate " + metrics.getStatsHitRate() + ", expected >= 0.5");
+        }
+    }
+
+    @Test
+    public void benchmarkIngestOverload() throws Exception {
+        // Shift change: every gateway flushes at once, while dashboards keep polling
+        AdmissionControlFilter filter = new AdmissionControlFilter(5, 2,
+                new AdaptiveConcurrencyLimiter(1, 4, 8, 2.0),
+                new AdaptiveConcurrencyLimiter(4, 32, 64, 2.0));
+
+        LoadResult unprotected = runOverload(null);
+        repository.deleteAll();
+        statsCache.invalidateAll();
+        durationSketches.clear();
+        LoadResult protectedRun = runOverload(filter);
+
+        System.out.println("==================================================");
+        System.out.println("INGEST OVERLOAD BENCHMARK (32 gateways x 10 batches x 100 events, 4 stats readers)");
+        System.out.println("Without admission control: write p99 = " + unprotected.writeP99Ms
+                + " ms, read p99 = " + unprotected.readP99Ms + " ms");
+        System.out.println("With admission control:    write p99 = " + protectedRun.writeP99Ms
+                + " ms, read p99 = " + protectedRun.readP99Ms
+                + " ms, overloaded = " + protectedRun.overloaded + ", rate limited = " + protectedRun.rateLimited
+                + ", write limits seen = " + protectedRun.writeLimitsSeen);
+        System.out.println("==================================================");
+
+        // The adaptive limiter itself must shed (rate limiting alone would also produce 429s)
+        if (protectedRun.overloaded == 0) {
+            throw new AssertionError("Benchmark FAILED: expected OVERLOADED rejections under overload");
+        }
+        if (protectedRun.writeLimitsSeen.size() < 2) {
+            throw new AssertionError("Benchmark FAILED: write limit never adapted, stayed at " + protectedRun.writeLimitsSeen);
+        }
+        if (protectedRun.readP99Ms >= unprotected.readP99Ms) {
+            throw new AssertionError("Benchmark FAILED: read p99 with admission control (" + protectedRun.readP99Ms
+                    + " ms) not better than without (" + unprotected.readP99Ms + " ms)");
+        }
+        if (protectedRun.writeP99Ms > 2000 || protectedRun.readP99Ms > 1000) {
+            throw new AssertionError("Benchmark FAILED: p99 not bounded (write " + protectedRun.writeP99Ms
+                    + " ms, read " + protectedRun.readP99Ms + " ms)");
+        }
+    }
+
+    private record LoadResult(long writeP99Ms, long readP99Ms, int overloaded, int rateLimited,
+                              Set<Integer> writeLimitsSeen) {}
+
+    private LoadResult runOverload(AdmissionControlFilter filter) throws Exception {
+        int gateways = 32;
+        int batchesPerGateway = 10;
+        int readers = 4;
+        Instant now = Instant.now();
+        AtomicLong idSequence = new AtomicLong();
+        AtomicInteger overloaded = new AtomicInteger();
+        AtomicInteger rateLimited = new AtomicInteger();
+        Set<Integer> writeLimitsSeen = ConcurrentHashMap.newKeySet();
+        AtomicInteger writersLeft = new AtomicInteger(gateways);
+        List<Long> writeLatencies = Collections.synchronizedList(new ArrayList<>());
+        List<Long> readLatencies = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(gateways + readers);
+        for (int g = 0; g < gateways; g++) {
+            final String gatewayId = "GW-" + g;
+            executor.submit(() -> {
+                try {
+                    for (int b = 0; b < batchesPerGateway; b++) {
+                        List<EventInput> batch = new ArrayList<>();
+                        for (int k = 0; k < 100; k++) {
+                            batch.add(new EventInput("OL-" + idSequence.incrementAndGet(), now,
+                                    "M-" + gatewayId, 1000, 0));
+                        }
+                        long t0 = System.nanoTime();
+                        String outcome = send(filter, "POST", gatewayId, () -> eventService.processBatch(batch));
+                        writeLatencies.add(System.nanoTime() - t0);
+                        if ("OVERLOADED".equals(outcome)) {
+                            overloaded.incrementAndGet();
+                        } else if ("RATE_LIMITED".equals(outcome)) {
+                            rateLimited.incrementAndGet();
+                        }
+                        if (filter != null) {
+                            writeLimitsSeen.add(filter.getWriteLimiter().getLimit());
+                        }
+                    }
+                } finally {
+                    writersLeft.decrementAndGet();
+                }
+                return null;
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            executor.submit(() -> {
+                Random random = new Random();
+                while (writersLeft.get() > 0) {
+                    // Distinct windows so every read actually reaches the database
+                    Instant from = now.minusSeconds(3600 + random.nextInt(100_000));
+                    long t0 = System.nanoTime();
+                    send(filter, "GET", null, () -> eventService.getStats("M-GW-0", from, now.plusSeconds(1)));
+                    readLatencies.add(System.nanoTime() - t0);
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
+            throw new AssertionError("Overload run did not finish in time");
+        }
+
+        return new LoadResult(p99Millis(writeLatencies), p99Millis(readLatencies),
+                overloaded.get(), rateLimited.get(), writeLimitsSeen);
+    }
+
+    // Routes the call through the admission filter, or calls it directly when there is none.
+    // Returns "OK" or the 429 reason (OVERLOADED / RATE_LIMITED).
+    private String send(AdmissionControlFilter filter, String method, String clientId, Runnable call) throws Exception {
+        if (filter == null) {
+            call.run();
+            return "OK";
+        }
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "POST".equals(method) ? "/events/batch" : "/events/stats");
+        if (clientId != null) {
+            request.addHeader(AdmissionControlFilter.CLIENT_ID_HEADER, clientId);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> call.run());
+        if (response.getStatus() != 429) {
+            return "OK";
+        }
+        return response.getContentAsString().contains("OVERLOADED") ? "OVERLOADED" : "RATE_LIMITED";
+    }
+
+    private long p99Millis(List<Long> latenciesNanos) {
+        if (latenciesNanos.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(latenciesNanos);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(sorted.size() * 0.99) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, index)));
+    }
 }
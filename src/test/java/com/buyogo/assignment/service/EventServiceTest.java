@@ -1,6 +1,7 @@
 package com.buyogo.assignment.service;
 
 import com.buyogo.assignment.dto.BatchSummary;
+import com.buyogo.assignment.dto.DurationStatsResponse;
 import com.buyogo.assignment.dto.EventInput;
 import com.buyogo.assignment.dto.StatsResponse;
 import com.buyogo.assignment.entity.MachineEvent;
@@ -17,7 +18,9 @@ import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,9 +33,17 @@ class EventServiceTest {
     @Autowired
     private EventRepository repository;
 
+    @Autowired
+    private StatsQueryCache statsCache;
+
+    @Autowired
+    private DurationSketchStore durationSketches;
+
     @BeforeEach
     void setup() {
         repository.deleteAll(); // clear DB before every test
+        statsCache.invalidateAll(); // deleteAll() bypasses processBatch, so drop cached windows too
+        durationSketches.clear();
     }
 
     // HELPER: Removed 'rxTime' because EventInput no longer has it
@@ -192,4 +203,223 @@ class EventServiceTest {
         latch.await(10, TimeUnit.SECONDS); // Wait for all threads
         assertEquals(threadCount * eventsPerThread, repository.count()); // Ensure no data lost
     }
-}
\ No newline at end of file
+
+    // --- Stats cache: only windows containing a new eventTime are evicted ---
+    @Test
+    void testStatsCacheInvalidatedByOverlappingWrite() {
+        Instant start = Instant.parse("2026-01-01T10:00:00Z");
+        Instant end = Instant.parse("2026-01-01T11:00:00Z");
+        Instant laterStart = Instant.parse("2026-01-01T12:00:00Z");
+        Instant laterEnd = Instant.parse("2026-01-01T13:00:00Z");
+
+        eventService.processBatch(List.of(createEvent("E-1", "M1", 100, 2, start.plusSeconds(10))));
+
+        // Warm both windows
+        assertEquals(1, eventService.getStats("M1", start, end).getEventsCount());
+        assertEquals(0, eventService.getStats("M1", laterStart, laterEnd).getEventsCount());
+        long missesBefore = eventService.getCacheMetrics().getStatsMissCount();
+
+        // Write into the first window only (and for another machine, which must not evict M1)
+        eventService.processBatch(List.of(
+                createEvent("E-2", "M1", 100, 3, start.plusSeconds(20)),
+                createEvent("E-3", "M2", 100, 1, laterStart.plusSeconds(20))));
+
+        StatsResponse refreshed = eventService.getStats("M1", start, end);
+        assertEquals(2, refreshed.getEventsCount());
+        assertEquals(5, refreshed.getDefectsCount());
+
+        assertEquals(0, eventService.getStats("M1", laterStart, laterEnd).getEventsCount());
+        // Only the overlapping window was reloaded, the other one was a hit
+        assertEquals(missesBefore + 1, eventService.getCacheMetrics().getStatsMissCount());
+    }
+
+    // --- Stats cache: an update that moves an event evicts its old window as well ---
+    @Test
+    void testStatsCacheInvalidatedForOldWindowOnUpdate() throws InterruptedException {
+        Instant start = Instant.parse("2026-01-01T10:00:00Z");
+        Instant end = Instant.parse("2026-01-01T11:00:00Z");
+
+        eventService.processBatch(List.of(createEvent("E-1", "M1", 100, 0, start.plusSeconds(10))));
+        assertEquals(1, eventService.getStats("M1", start, end).getEventsCount());
+        assertEquals(1, eventService.getTopDefectLines(start, end, 10).size());
+
+        Thread.sleep(20); // newer receivedTime so the update wins
+
+        // Move the event out of the cached window
+        eventService.processBatch(List.of(createEvent("E-1", "M1", 100, 0, end.plusSeconds(10))));
+
+        assertEquals(0, eventService.getStats("M1", start, end).getEventsCount());
+        assertTrue(eventService.getTopDefectLines(start, end, 10).isEmpty());
+    }
+
+    // --- Stats cache: a write committing during the DB query only blocks caching of its own windows ---
+    @Test
+    void testStatsCacheIgnoresResultRacingOverlappingWrite() {
+        Instant start = Instant.parse("2026-01-01T10:00:00Z");
+        Instant end = Instant.parse("2026-01-01T11:00:00Z");
+        StatsResponse stale = StatsResponse.builder().machineId("M1").eventsCount(0).build();
+
+        // Simulate a batch for M1 committing (and evicting) while the reader is still querying
+        statsCache.getStats("M1", start, end, () -> {
+            statsCache.invalidate(List.of(new StatsQueryCache.Touch("M1", start.plusSeconds(10))));
+            return stale;
+        });
+        // Same for M2: a write on another machine must not stop M2's window from being cached
+        statsCache.getStats("M2", start, end, () -> {
+            statsCache.invalidate(List.of(new StatsQueryCache.Touch("M1", start.plusSeconds(10))));
+            return stale;
+        });
+
+        long missesBefore = eventService.getCacheMetrics().getStatsMissCount();
+        eventService.getStats("M1", start, end); // Stale result was backed out -> miss
+        eventService.getStats("M2", start, end); // Unrelated write -> still cached, hit
+        assertEquals(missesBefore + 1, eventService.getCacheMetrics().getStatsMissCount());
+    }
+
+    // --- Stats cache: concurrent misses on the same window share one DB query ---
+    @Test
+    void testStatsCacheCoalescesConcurrentMisses() throws Exception {
+        Instant start = Instant.parse("2026-01-01T10:00:00Z");
+        Instant end = Instant.parse("2026-01-01T11:00:00Z");
+        StatsResponse loaded = StatsResponse.builder().machineId("M1").eventsCount(7).build();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        int readers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        List<Future<StatsResponse>> results = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            results.add(executor.submit(() -> statsCache.getStats("M1", start, end, () -> {
+                loads.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS); // Hold the query until every reader has missed
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return loaded;
+            })));
+        }
+
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<StatsResponse> result : results) {
+            assertEquals(7, result.get(5, TimeUnit.SECONDS).getEventsCount());
+        }
+        executor.shutdown();
+        assertEquals(1, loads.get());
+    }
+
+    // --- Duration stats: full hours from sketches, partial edge hours from raw rows ---
+    @Test
+    void testDurationStatsAcrossPartialHours() {
+        // Recent hours, so the full ones are inside the sketch retention
+        Instant hour = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(6, ChronoUnit.HOURS);
+        Instant start = hour.plus(30, ChronoUnit.MINUTES);
+        Instant end = start.plus(3, ChronoUnit.HOURS);
+
+        eventService.processBatch(List.of(
+                createEvent("E-0", "M1", 9000, 0, hour.plus(15, ChronoUnit.MINUTES)),  // Before window
+                createEvent("E-1", "M1", 1000, 0, hour.plus(45, ChronoUnit.MINUTES)),  // Leading partial hour
+                createEvent("E-2", "M1", 2000, 0, hour.plus(75, ChronoUnit.MINUTES)),
+                createEvent("E-3", "M1", 3000, 0, hour.plus(135, ChronoUnit.MINUTES)),
+                createEvent("E-4", "M1", 4000, 0, hour.plus(195, ChronoUnit.MINUTES)), // Trailing partial hour
+                createEvent("E-5", "M1", 9000, 0, end),                                // End exclusive
+                createEvent("E-6", "M2", 9000, 0, hour.plus(75, ChronoUnit.MINUTES)))); // Other machine
+
+        DurationStatsResponse stats = eventService.getDurationStats("M1", start, end);
+
+        assertEquals(4, stats.getEventsCount());
+        assertEquals(10_000, stats.getTotalDurationMs());
+        assertEquals(2500.0, stats.getAvgDurationMs());
+        assertEquals(0.0009, stats.getUtilization()); // 10s busy over a 3h window
+    }
+
+    // --- Duration stats: sketch percentiles stay within 1% of the exact values ---
+    @Test
+    void testDurationPercentiles() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(4, ChronoUnit.HOURS);
+        List<EventInput> batch = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            // Durations 1..1000 ms spread over three hourly buckets
+            batch.add(createEvent("E-" + i, "M1", i, 0, start.plusSeconds(i * 10L)));
+        }
+        eventService.processBatch(batch);
+
+        DurationStatsResponse stats = eventService.getDurationStats("M1", start, start.plus(3, ChronoUnit.HOURS));
+
+        assertEquals(1000, stats.getEventsCount());
+        assertEquals(500_500, stats.getTotalDurationMs());
+        assertEquals(500, stats.getP50DurationMs(), 5);
+        assertEquals(950, stats.getP95DurationMs(), 10);
+        assertEquals(990, stats.getP99DurationMs(), 10);
+    }
+
+    // --- Duration stats: an update replaces the old duration in the sketch ---
+    @Test
+    void testDurationStatsFollowUpdates() throws InterruptedException {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(2, ChronoUnit.HOURS);
+        Instant end = start.plus(1, ChronoUnit.HOURS);
+
+        eventService.processBatch(List.of(createEvent("E-1", "M1", 1000, 0, start.plusSeconds(60))));
+        Thread.sleep(20); // newer receivedTime so the update wins
+        eventService.processBatch(List.of(createEvent("E-1", "M1", 5000, 0, start.plusSeconds(60))));
+
+        DurationStatsResponse stats = eventService.getDurationStats("M1", start, end);
+
+        assertEquals(1, stats.getEventsCount());
+        assertEquals(5000, stats.getTotalDurationMs());
+        assertEquals(5000, stats.getP99DurationMs(), 50);
+        assertEquals(0, durationSketches.getDriftCount());
+    }
+
+    // --- Duration stats: concurrent updates of one event don't make the sketch drift ---
+    @Test
+    void testDurationStatsConcurrentUpdates() throws InterruptedException {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(2, ChronoUnit.HOURS);
+        Instant end = start.plus(1, ChronoUnit.HOURS);
+        eventService.processBatch(List.of(createEvent("E-1", "M1", 1000, 0, start.plusSeconds(60))));
+        Thread.sleep(20); // newer receivedTime so the updates win
+
+        int threadCount = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            long duration = 2000 + i * 1000L;
+            executor.submit(() -> {
+                try {
+                    eventService.processBatch(List.of(createEvent("E-1", "M1", duration, 0, start.plusSeconds(60))));
+                } catch (RuntimeException e) {
+                    // A batch that keeps losing the race gives up; it must leave the sketch untouched
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        DurationStatsResponse stats = eventService.getDurationStats("M1", start, end);
+        long stored = repository.findByEventId("E-1").orElseThrow().getDurationMs();
+
+        assertEquals(1, stats.getEventsCount());
+        assertEquals(stored, stats.getTotalDurationMs());
+        assertEquals(0, durationSketches.getDriftCount());
+    }
+
+    // --- Duration stats: hours past the retention aren't kept as sketches but still counted ---
+    @Test
+    void testDurationStatsBeyondRetention() {
+        Instant oldHour = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(60, ChronoUnit.DAYS);
+        Instant recentHour = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(2, ChronoUnit.HOURS);
+
+        eventService.processBatch(List.of(
+                createEvent("E-1", "M1", 1000, 0, oldHour.plusSeconds(60)),
+                createEvent("E-2", "M1", 2000, 0, recentHour.plusSeconds(60))));
+
+        assertEquals(1, durationSketches.size()); // Only the recent hour is held in memory
+
+        DurationStatsResponse stats = eventService.getDurationStats("M1", oldHour, recentHour.plus(1, ChronoUnit.HOURS));
+        assertEquals(2, stats.getEventsCount());
+        assertEquals(3000, stats.getTotalDurationMs());
+    }
+}